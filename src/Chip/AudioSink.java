@@ -0,0 +1,31 @@
+package Chip;
+
+import java.io.IOException;
+
+/**
+ * Destination for the 16 bit signed little endian mono samples produced by Beeper.
+ * Only the audio thread calls these methods.
+ */
+public interface AudioSink {
+    /**
+     * Prepares the sink for samples at the given rate.
+     */
+    void open(float sampleRate) throws IOException;
+
+    /**
+     * Writes samples. May block the audio thread, but Beeper keeps queuedFrames() below capacityFrames() so it rarely does.
+     */
+    void write(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Number of frames written but not yet played.
+     */
+    int queuedFrames();
+
+    /**
+     * Maximum number of frames the sink can hold before write() blocks.
+     */
+    int capacityFrames();
+
+    void close() throws IOException;
+}
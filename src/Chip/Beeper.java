@@ -0,0 +1,158 @@
+package Chip;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a square wave while the chip's sound timer is above zero.
+ *
+ * The emulation thread only writes a volatile flag through update(). A dedicated audio thread fills
+ * a preallocated sample buffer in small chunks and keeps the sink topped up to a target latency.
+ * The target grows by one chunk every time the sink runs dry and shrinks again after a quiet
+ * period, settling at the lowest latency that plays without underruns.
+ */
+public class Beeper {
+    private static final int CHUNK_MILLIS = 2;
+    private static final int MIN_CHUNKS = 2;
+    private static final long SHRINK_AFTER_NANOS = 2000000000L;
+    private static final short AMPLITUDE = 6000;
+
+    private final AudioSink sink;
+    private final float sampleRate;
+    private final int toneHz;
+    private final int chunk_frames;
+    private final byte[] samples;
+    private Thread thread;
+
+    private volatile boolean tone = false;
+    private volatile boolean running = false;
+    private volatile long underruns = 0;
+    private volatile int queued_frames = 0;
+    private volatile int target_frames;
+
+    /**
+     * @param sink where samples are written
+     * @param sampleRate samples per second
+     * @param toneHz frequency of the square wave
+     */
+    public Beeper(AudioSink sink, float sampleRate, int toneHz) {
+        this.sink = sink;
+        this.sampleRate = sampleRate;
+        this.toneHz = toneHz;
+        chunk_frames = Math.max(1, (int) (sampleRate * CHUNK_MILLIS / 1000));
+        samples = new byte[chunk_frames * 2];
+        target_frames = chunk_frames * 4;
+    }
+
+    /**
+     * Opens the sink and starts the audio thread.
+     */
+    public void start() throws IOException {
+        sink.open(sampleRate);
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                playLoop();
+            }
+        }, "chip8-audio");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Turns the tone on or off from the chip's sound timer. Never blocks.
+     */
+    public void update(Chip8 chip){
+        setTone(chip.getSoundTimer() > 0);
+    }
+
+    /**
+     * Turns the tone on or off directly, e.g. to silence it while the chip is paused. Never blocks.
+     */
+    public void setTone(boolean on){
+        if(on != tone){
+            tone = on;
+        }
+    }
+
+    /**
+     * Number of times the sink ran out of samples.
+     */
+    public long getUnderruns() {return underruns;}
+
+    /**
+     * Audio currently buffered in the sink, in milliseconds.
+     */
+    public double getLatencyMillis() {return queued_frames * 1000.0 / sampleRate;}
+
+    /**
+     * Buffered audio the audio thread is currently aiming for, in milliseconds.
+     */
+    public double getTargetLatencyMillis() {return target_frames * 1000.0 / sampleRate;}
+
+    /**
+     * Stops the audio thread and closes the sink.
+     */
+    public void close(){
+        if(!running){
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sink.close();
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    private void playLoop(){
+        int min_frames = chunk_frames * MIN_CHUNKS;
+        int max_frames = Math.max(min_frames, sink.capacityFrames() - chunk_frames);
+        int half_period = Math.max(1, (int) (sampleRate / toneHz / 2));
+        int phase = 0;
+        boolean primed = false;
+        long stable_since = System.nanoTime();
+        try {
+            while(running){
+                int queued = sink.queuedFrames();
+                queued_frames = queued;
+                long now = System.nanoTime();
+                if(primed && queued == 0){
+                    underruns++;
+                    target_frames = Math.min(max_frames, target_frames + chunk_frames);
+                    stable_since = now;
+                } else if(now - stable_since > SHRINK_AFTER_NANOS && target_frames > min_frames){
+                    target_frames = Math.max(min_frames, target_frames - chunk_frames);
+                    stable_since = now;
+                }
+                if(queued >= target_frames){
+                    // Sleep until roughly one chunk has played
+                    LockSupport.parkNanos((long) (chunk_frames * 1e9 / sampleRate));
+                    continue;
+                }
+                boolean on = tone;
+                for(int i = 0; i < chunk_frames; i++){
+                    short sample = 0;
+                    if(on){
+                        sample = phase < half_period ? AMPLITUDE : -AMPLITUDE;
+                    }
+                    phase = (phase + 1) % (half_period * 2);
+                    samples[i * 2] = (byte) sample;
+                    samples[i * 2 + 1] = (byte) (sample >> 8);
+                }
+                sink.write(samples, 0, samples.length);
+                primed = true;
+            }
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+}
@@ -23,6 +23,11 @@ public class Chip8 {
 
     private boolean draw_flag;
 
+    private Debugger debugger;
+    private boolean debug_armed;
+
+    private long cycles;        //Instructions executed since init, timers also update once per instruction
+
     public void init(){
         memory = new char[4096];
         V = new char[16];
@@ -39,10 +44,14 @@ public class Chip8 {
         display = new byte[64 * 32];
 
         draw_flag = false;
+        cycles = 0;
         loadFontSet();
     }
 
     public void run(){
+        if(debug_armed && debugger.beforeExecute()){
+            return;
+        }
         //Fetch Opcode
         char optcode = (char)((memory[pc] << 8)| memory[pc + 1]);
         // Opcode has 4 digits 0x____.
@@ -210,6 +219,9 @@ public class Chip8 {
                 int y = V[(optcode & 0x00F0) >> 4];
                 int N = optcode & 0x000F;
                 V[0xF] = 0; // Collision Flag
+                if(debug_armed){
+                    debugger.onRead(I, N);
+                }
                 for(int _y = 0; _y < N; _y++){
                     int line = memory[I + _y];
                     for(int _x = 0; _x < 8; _x++){
@@ -294,6 +306,9 @@ public class Chip8 {
                         int ten = (value - (value % 10)) / 10;
                         value = value % 10;
                         int one = value;
+                        if(debug_armed){
+                            debugger.onWrite(I, 3);
+                        }
                         memory[I] = (char) hundred;
                         memory[I + 1] = (char) ten;
                         memory[I + 2] = (char) one;
@@ -303,6 +318,9 @@ public class Chip8 {
                     }
                     case 0x0055: { // 0xFR55: Stores v0 - vR into memory[I to I + R]
                         int R = (optcode & 0x0F00) >> 8;
+                        if(debug_armed){
+                            debugger.onWrite(I, R + 1);
+                        }
                         for(int i = 0; i < R + 1; i++) {
                             memory[I + i] = V[i];
                         }
@@ -313,6 +331,9 @@ public class Chip8 {
                     }
                     case 0x0065: { // 0xFR65: Loads v0 - vR from memory[I to I + R]
                         int R = (optcode & 0x0F00) >> 8;
+                        if(debug_armed){
+                            debugger.onRead(I, R + 1);
+                        }
                         for(int i = 0; i < R + 1; i++) {
                             V[i] = memory[I + i];
                         }
@@ -330,12 +351,16 @@ public class Chip8 {
                 System.err.println("Unknown Opcode");
                 System.exit(0);
         }
+        cycles++;
         if(sound_timer > 0){
             sound_timer -= 1;
         }
         if(delay_timer > 0){
             delay_timer -= 1;
         }
+        if(debug_armed){
+            debugger.afterExecute();
+        }
     }
 
     public byte[] getDisplay(){
@@ -344,6 +369,37 @@ public class Chip8 {
 
     public char[] getMemory() {return memory;}
 
+    public char[] getRegisters() {return V;}
+
+    public char[] getStack() {return stack;}
+
+    public char getPc() {return pc;}
+
+    public char getI() {return I;}
+
+    public int getStackPointer() {return stack_pointer;}
+
+    public int getDelayTimer() {return delay_timer;}
+
+    public int getSoundTimer() {return sound_timer;}
+
+    public long getCycles() {return cycles;}
+
+    /**
+     * Connects a debugger. Called by the Debugger constructor.
+     */
+    void attachDebugger(Debugger debugger){
+        this.debugger = debugger;
+        this.debug_armed = false;
+    }
+
+    /**
+     * The chip only calls into the debugger while it is armed.
+     */
+    void setDebugArmed(boolean armed){
+        debug_armed = armed && debugger != null;
+    }
+
     public boolean needsRedraw(){
         return draw_flag;
     }
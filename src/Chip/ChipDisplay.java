@@ -10,9 +10,13 @@ import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextAlignment;
 import javafx.stage.FileChooser;
@@ -20,10 +24,21 @@ import javafx.stage.Stage;
 import javafx.util.Duration;
 
 import java.io.File;
+import java.io.IOException;
 
 public class ChipDisplay extends Application {
+    static final int CYCLE_MICROS = 7000;
+
     int[] keyIdToKey;
     int[] keyBuffer;
+    FrameCapture capture;
+    Debugger debugger;
+    FrameServer server;
+    Beeper beeper;
+    EmulatorMetrics metrics;
+    boolean show_overlay = false;
+    boolean force_redraw = false;
+    String overlay_shown;
     @Override
     public void start(Stage stage) throws Exception {
         keyIdToKey = new int[256];
@@ -32,6 +47,13 @@ public class ChipDisplay extends Application {
 
         Chip8 chip = new Chip8();
         chip.init();
+        debugger = new Debugger(chip);
+        metrics = new EmulatorMetrics("main", CYCLE_MICROS);
+        String metrics_log = getParameters().getNamed().get("metrics-log");
+        if(metrics_log != null){
+            metrics.setLogFile(new File(metrics_log), 10 * 1024 * 1024, 5);
+        }
+        metrics.start(1000);
         //chip.loadProgram("./Programs/pong2.c8");
 
         VBox root = new VBox();
@@ -47,20 +69,54 @@ public class ChipDisplay extends Application {
 
         keyHandlers(mainScene);
 
+        beeper = new Beeper(new LineAudioSink(100), 44100, 440);
+        try {
+            beeper.start();
+        } catch (IOException e) {
+            System.err.println("Sound disabled: " + e.getMessage());
+            beeper = null;
+        }
+
+        String stream_port = getParameters().getNamed().get("stream-port");
+        if(stream_port != null){
+            startServer(Integer.parseInt(stream_port));
+        }
+
         GraphicsContext gc = canvas.getGraphicsContext2D();
 
         Timeline loop = new Timeline();
         loop.setCycleCount( Timeline.INDEFINITE );
         KeyFrame kf = new KeyFrame(
-            Duration.seconds(0.007),
+            Duration.seconds(CYCLE_MICROS / 1000000.0),
             new EventHandler<ActionEvent>() {
                 public void handle(ActionEvent ae)
                 {
-                    chip.setKeyBuffer(keyBuffer);
+                    chip.setKeyBuffer(server != null ? server.mergeKeys(keyBuffer) : keyBuffer);
                     chip.run();
-                    if(chip.needsRedraw()){
+                    metrics.onCycle(chip);
+                    if(beeper != null){
+                        if(debugger.isPaused()){
+                            beeper.setTone(false);
+                        } else {
+                            beeper.update(chip);
+                        }
+                    }
+                    if(capture != null){
+                        capture.capture(chip);
+                    }
+                    if(server != null){
+                        server.publish(chip);
+                    }
+                    if(chip.needsRedraw() || force_redraw){
+                        long frame_start = metrics.beginFrame();
                         drawPixels(gc, chip);
+                        metrics.endFrame(frame_start);
                         chip.removeDrawFlag();
+                        force_redraw = false;
+                        overlay_shown = null;
+                    }
+                    if(show_overlay && overlay_shown != metrics.getSummary()){
+                        drawOverlay(gc);
                     }
                 }
             }
@@ -70,6 +126,20 @@ public class ChipDisplay extends Application {
         stage.show();
     }
 
+    @Override
+    public void stop() {
+        stopCapture();
+        metrics.stop();
+        if(beeper != null){
+            beeper.close();
+            beeper = null;
+        }
+        if(server != null){
+            server.close();
+            server = null;
+        }
+    }
+
     private MenuBar createMenuBar(Stage stage, Chip8 chip, Text memory_text){
         MenuBar menu_bar = new MenuBar();
         Menu file_menu = new Menu("File");
@@ -90,6 +160,76 @@ public class ChipDisplay extends Application {
             }
         });
 
+        MenuItem start_capture = new MenuItem("Start Capture");
+        MenuItem stop_capture = new MenuItem("Stop Capture");
+        MenuItem export_capture = new MenuItem("Export Capture to GIF");
+        stop_capture.setDisable(true);
+
+        FileChooser capture_chooser = new FileChooser();
+        capture_chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Frame Capture", "*.c8cap"));
+        start_capture.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                File file = capture_chooser.showSaveDialog(stage);
+                if (file != null) {
+                    try {
+                        capture = new FrameCapture(file, CYCLE_MICROS, 64);
+                        start_capture.setDisable(true);
+                        stop_capture.setDisable(false);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+        stop_capture.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                stopCapture();
+                start_capture.setDisable(false);
+                stop_capture.setDisable(true);
+            }
+        });
+        export_capture.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                File file = capture_chooser.showOpenDialog(stage);
+                if (file != null) {
+                    FileChooser gif_chooser = new FileChooser();
+                    gif_chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("GIF", "*.gif"));
+                    File gif = gif_chooser.showSaveDialog(stage);
+                    if (gif != null) {
+                        try {
+                            FrameCapture.exportGif(file, gif, 4);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        });
+
+        MenuItem start_server = new MenuItem("Start Stream Server...");
+        start_server.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                TextInputDialog dialog = new TextInputDialog("8642");
+                dialog.setTitle("Stream Server");
+                dialog.setHeaderText(null);
+                dialog.setContentText("Port:");
+                String input = dialog.showAndWait().orElse(null);
+                if (input != null) {
+                    try {
+                        if (startServer(Integer.parseInt(input.trim()))) {
+                            start_server.setDisable(true);
+                        }
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid port: " + input);
+                    }
+                }
+            }
+        });
+
         Menu view_menu = new Menu("View");
         MenuItem view_memory = new Menu("View Memory");
 
@@ -122,12 +262,211 @@ public class ChipDisplay extends Application {
         });
 
         file_menu.getItems().add(add_file);
+        file_menu.getItems().add(start_capture);
+        file_menu.getItems().add(stop_capture);
+        file_menu.getItems().add(export_capture);
+        file_menu.getItems().add(start_server);
+        CheckMenuItem view_metrics = new CheckMenuItem("Metrics Overlay");
+        view_metrics.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                show_overlay = view_metrics.isSelected();
+                force_redraw = true;
+            }
+        });
+
         view_menu.getItems().add(view_memory);
+        view_menu.getItems().add(view_metrics);
         menu_bar.getMenus().add(file_menu);
         menu_bar.getMenus().add(view_menu);
+        menu_bar.getMenus().add(createDebugMenu(stage));
         return menu_bar;
     }
 
+    private Menu createDebugMenu(Stage stage){
+        Menu debug_menu = new Menu("Debug");
+        MenuItem pause = new MenuItem("Pause / Continue");
+        MenuItem step = new MenuItem("Step");
+        MenuItem step_over = new MenuItem("Step Over");
+        MenuItem step_out = new MenuItem("Step Out");
+        MenuItem toggle_breakpoint = new MenuItem("Toggle Breakpoint...");
+        MenuItem watch_read = new MenuItem("Watch Memory Read...");
+        MenuItem watch_write = new MenuItem("Watch Memory Write...");
+        MenuItem watch_register = new MenuItem("Watch Register...");
+        MenuItem clear_all = new MenuItem("Clear Breakpoints and Watches");
+        MenuItem view_registers = new MenuItem("View Registers");
+
+        pause.setAccelerator(new KeyCodeCombination(KeyCode.F5));
+        step.setAccelerator(new KeyCodeCombination(KeyCode.F11));
+        step_over.setAccelerator(new KeyCodeCombination(KeyCode.F10));
+        step_out.setAccelerator(new KeyCodeCombination(KeyCode.F11, KeyCombination.SHIFT_DOWN));
+
+        Text registers_text = new Text();
+        registers_text.setFont(Font.font("Monospaced", 14));
+        ScrollPane registers_root = new ScrollPane();
+        registers_root.setContent(registers_text);
+        Stage registers_window = new Stage();
+        registers_window.initOwner(stage);
+        registers_window.setTitle("Registers");
+        registers_window.setScene(new Scene(registers_root, 320, 240));
+        debugger.setOnBreak(new Runnable() {
+            @Override
+            public void run() {
+                registers_text.setText(debugger.describeState());
+            }
+        });
+
+        pause.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                if (debugger.isPaused()) {
+                    debugger.resume();
+                    registers_text.setText(debugger.describeState());
+                } else {
+                    debugger.pause();
+                }
+            }
+        });
+        step.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                debugger.step();
+            }
+        });
+        step_over.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                debugger.stepOver();
+            }
+        });
+        step_out.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                debugger.stepOut();
+            }
+        });
+        toggle_breakpoint.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                String input = askDebugInput("Breakpoint address (hex):");
+                if (input != null) {
+                    try {
+                        int address = Integer.parseInt(input, 16);
+                        if (debugger.hasBreakpoint(address)) {
+                            debugger.removeBreakpoint(address);
+                        } else {
+                            debugger.addBreakpoint(address);
+                        }
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid address: " + input);
+                    }
+                }
+            }
+        });
+        EventHandler<ActionEvent> watch_memory = new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                boolean write = actionEvent.getSource() == watch_write;
+                String input = askDebugInput("Address and optional length (hex), e.g. 300,10:");
+                if (input != null) {
+                    try {
+                        String[] parts = input.split(",");
+                        int address = Integer.parseInt(parts[0].trim(), 16);
+                        int length = parts.length > 1 ? Integer.parseInt(parts[1].trim(), 16) : 1;
+                        if (write) {
+                            debugger.addWriteWatch(address, length);
+                        } else {
+                            debugger.addReadWatch(address, length);
+                        }
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid watch: " + input);
+                    }
+                }
+            }
+        };
+        watch_read.setOnAction(watch_memory);
+        watch_write.setOnAction(watch_memory);
+        watch_register.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                String input = askDebugInput("Register and optional value (hex), e.g. V3 or V3=0A:");
+                if (input != null) {
+                    try {
+                        String[] parts = input.toUpperCase().replace("V", "").split("=");
+                        int register = Integer.parseInt(parts[0].trim(), 16) & 0xF;
+                        int value = parts.length > 1 ? Integer.parseInt(parts[1].trim(), 16) & 0xFF : Debugger.ANY_CHANGE;
+                        debugger.addRegisterCondition(register, value);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid register condition: " + input);
+                    }
+                }
+            }
+        });
+        clear_all.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                debugger.clearAll();
+            }
+        });
+        view_registers.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                registers_text.setText(debugger.describeState());
+                registers_window.show();
+                registers_window.toFront();
+            }
+        });
+
+        debug_menu.getItems().addAll(pause, step, step_over, step_out, new SeparatorMenuItem(),
+                toggle_breakpoint, watch_read, watch_write, watch_register, clear_all,
+                new SeparatorMenuItem(), view_registers);
+        return debug_menu;
+    }
+
+    private String askDebugInput(String prompt){
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Debug");
+        dialog.setHeaderText(null);
+        dialog.setContentText(prompt);
+        return dialog.showAndWait().orElse(null);
+    }
+
+    private boolean startServer(int port){
+        if(server != null){
+            return true;
+        }
+        try {
+            server = new FrameServer(port);
+            System.out.println("Streaming frames on 127.0.0.1:" + server.getPort());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void stopCapture(){
+        if(capture != null){
+            try {
+                capture.close();
+                System.out.println("Captured " + capture.getCapturedFrames() + " frames, "
+                        + capture.getDroppedFrames() + " dropped");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            capture = null;
+        }
+    }
+
+    private void drawOverlay(GraphicsContext g){
+        overlay_shown = metrics.getSummary();
+        g.setFill(Color.rgb(0, 0, 0, 0.7));
+        g.fillRect(0, 0, 960, 22);
+        g.setFill(Color.LIME);
+        g.setFont(Font.font("Monospaced", 14));
+        g.fillText(overlay_shown, 6, 16);
+    }
+
     private void drawPixels(GraphicsContext g, Chip8 chip){
         byte[] display = chip.getDisplay();
         for(int i = 0; i < display.length; i++) {
@@ -170,8 +509,12 @@ public class ChipDisplay extends Application {
             @Override
             public void handle(KeyEvent event)
             {
+                if(event.getText().isEmpty()) {
+                    return;
+                }
+                metrics.onKeyEvent();
                 char keyPressed = event.getText().charAt(0);
-                if(keyIdToKey[keyPressed] != -1) {
+                if(keyPressed < keyIdToKey.length && keyIdToKey[keyPressed] != -1) {
                     keyBuffer[keyIdToKey[keyPressed]] = 1;
                 }
             }
@@ -182,8 +525,12 @@ public class ChipDisplay extends Application {
             @Override
             public void handle(KeyEvent event)
             {
+                if(event.getText().isEmpty()) {
+                    return;
+                }
+                metrics.onKeyEvent();
                 char keyReleased = event.getText().charAt(0);
-                if(keyIdToKey[keyReleased] != -1) {
+                if(keyReleased < keyIdToKey.length && keyIdToKey[keyReleased] != -1) {
                     keyBuffer[keyIdToKey[keyReleased]] = 0;
                 }
             }
@@ -0,0 +1,357 @@
+package Chip;
+
+/**
+ * Breakpoints, watchpoints and stepping for a Chip8.
+ *
+ * The chip only calls into the debugger while it is armed, which is whenever anything is set or
+ * execution is paused, so an idle debugger costs the emulator a single boolean check per cycle.
+ * Breakpoints and memory watchpoints are kept as one bit per address.
+ *
+ * Not thread safe: use it from the thread that calls Chip8.run().
+ */
+public class Debugger {
+    /** Register condition that triggers on any change of the register. */
+    public static final int ANY_CHANGE = -1;
+    private static final int NO_CONDITION = -2;
+
+    private final Chip8 chip;
+
+    private final long[] breakpoints = new long[4096 / 64];
+    private final long[] read_watch = new long[4096 / 64];
+    private final long[] write_watch = new long[4096 / 64];
+    private int breakpoint_count = 0;
+    private int read_watch_count = 0;
+    private int write_watch_count = 0;
+
+    private final int[] register_conditions = new int[16];
+    private final char[] register_snapshot = new char[16];
+    private int register_condition_count = 0;
+
+    private boolean paused = false;
+    private boolean step_pending = false;
+    private boolean stepping = false;
+    private boolean skip_breakpoint = false;
+    private int step_over_pc = -1;
+    private int step_over_sp = -1;
+    private int step_out_sp = -1;
+
+    private String watch_hit;
+    private String break_reason;
+    private Runnable on_break;
+
+    public Debugger(Chip8 chip) {
+        this.chip = chip;
+        for(int i = 0; i < register_conditions.length; i++){
+            register_conditions[i] = NO_CONDITION;
+        }
+        chip.attachDebugger(this);
+    }
+
+    /**
+     * Sets a callback that runs every time execution pauses.
+     */
+    public void setOnBreak(Runnable on_break) {
+        this.on_break = on_break;
+    }
+
+    public void addBreakpoint(int address){
+        if(set(breakpoints, address)){
+            breakpoint_count++;
+        }
+        updateArmed();
+    }
+
+    public void removeBreakpoint(int address){
+        if(clear(breakpoints, address)){
+            breakpoint_count--;
+        }
+        updateArmed();
+    }
+
+    public boolean hasBreakpoint(int address){
+        return test(breakpoints, address);
+    }
+
+    /**
+     * Pauses after any instruction that reads memory in [address, address + length).
+     * Reads are tracked for DXYN sprite data and FX65.
+     */
+    public void addReadWatch(int address, int length){
+        for(int i = 0; i < length; i++){
+            if(set(read_watch, address + i)){
+                read_watch_count++;
+            }
+        }
+        updateArmed();
+    }
+
+    /**
+     * Pauses after any instruction that writes memory in [address, address + length).
+     * Writes are tracked for FX33 and FX55.
+     */
+    public void addWriteWatch(int address, int length){
+        for(int i = 0; i < length; i++){
+            if(set(write_watch, address + i)){
+                write_watch_count++;
+            }
+        }
+        updateArmed();
+    }
+
+    /**
+     * Pauses after an instruction changes register V[register].
+     * @param value the value that triggers the break, or ANY_CHANGE
+     */
+    public void addRegisterCondition(int register, int value){
+        if(register_conditions[register] == NO_CONDITION){
+            register_condition_count++;
+        }
+        register_conditions[register] = value;
+        updateArmed();
+    }
+
+    public void removeRegisterCondition(int register){
+        if(register_conditions[register] != NO_CONDITION){
+            register_condition_count--;
+        }
+        register_conditions[register] = NO_CONDITION;
+        updateArmed();
+    }
+
+    /**
+     * Removes every breakpoint, watchpoint and register condition. Does not resume execution.
+     */
+    public void clearAll(){
+        for(int i = 0; i < breakpoints.length; i++){
+            breakpoints[i] = 0;
+            read_watch[i] = 0;
+            write_watch[i] = 0;
+        }
+        for(int i = 0; i < register_conditions.length; i++){
+            register_conditions[i] = NO_CONDITION;
+        }
+        breakpoint_count = 0;
+        read_watch_count = 0;
+        write_watch_count = 0;
+        register_condition_count = 0;
+        updateArmed();
+    }
+
+    public boolean isPaused() {return paused;}
+
+    public String getBreakReason() {return break_reason;}
+
+    public void pause(){
+        breakAt("Paused");
+    }
+
+    /**
+     * Continues execution. A breakpoint on the current instruction is ignored once.
+     */
+    public void resume(){
+        if(!paused){
+            return;
+        }
+        paused = false;
+        skip_breakpoint = true;
+        updateArmed();
+    }
+
+    /**
+     * Executes a single instruction and pauses again.
+     */
+    public void step(){
+        if(!paused){
+            return;
+        }
+        step_pending = true;
+        updateArmed();
+    }
+
+    /**
+     * Runs a 2NNN call to completion and pauses at the instruction after it. Other instructions are single stepped.
+     */
+    public void stepOver(){
+        if(!paused){
+            return;
+        }
+        char[] memory = chip.getMemory();
+        int pc = chip.getPc();
+        if((memory[pc] & 0xF0) == 0x20){
+            step_over_pc = pc + 2;
+            step_over_sp = chip.getStackPointer();
+            resume();
+        } else {
+            step();
+        }
+    }
+
+    /**
+     * Runs until the current subroutine returns with 00EE and pauses at the instruction after the call.
+     */
+    public void stepOut(){
+        if(!paused){
+            return;
+        }
+        if(chip.getStackPointer() == 0){
+            step();
+            return;
+        }
+        step_out_sp = chip.getStackPointer();
+        resume();
+    }
+
+    /**
+     * Returns the registers, timers and stack of the chip as text.
+     */
+    public String describeState(){
+        StringBuilder builder = new StringBuilder();
+        char[] memory = chip.getMemory();
+        int pc = chip.getPc();
+        builder.append(String.format("PC: %03X  Opcode: %02X%02X%n", pc, (int) memory[pc], (int) memory[pc + 1]));
+        builder.append(String.format("I: %03X  DT: %d  ST: %d%n", (int) chip.getI(), chip.getDelayTimer(), chip.getSoundTimer()));
+        char[] V = chip.getRegisters();
+        for(int i = 0; i < V.length; i++){
+            builder.append(String.format("V%X: %02X", i, (int) V[i]));
+            builder.append(i % 4 == 3 ? System.lineSeparator() : "  ");
+        }
+        builder.append("Stack:");
+        char[] stack = chip.getStack();
+        for(int i = 0; i < chip.getStackPointer(); i++){
+            builder.append(String.format(" %03X", (int) stack[i]));
+        }
+        builder.append(System.lineSeparator());
+        if(break_reason != null){
+            builder.append(break_reason).append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Called by the chip before fetching an instruction.
+     * @return true if the instruction must not execute because the chip is paused
+     */
+    boolean beforeExecute(){
+        int pc = chip.getPc();
+        if(paused){
+            if(!step_pending){
+                return true;
+            }
+            step_pending = false;
+            stepping = true;
+        } else if(skip_breakpoint){
+            skip_breakpoint = false;
+            updateArmed();
+        } else if(test(breakpoints, pc)){
+            breakAt(String.format("Breakpoint at %03X", pc));
+            return true;
+        } else if(pc == step_over_pc && chip.getStackPointer() == step_over_sp){
+            breakAt("Stepped over call");
+            return true;
+        } else if(step_out_sp >= 0 && chip.getStackPointer() < step_out_sp){
+            breakAt("Stepped out of call");
+            return true;
+        }
+        if(register_condition_count > 0){
+            System.arraycopy(chip.getRegisters(), 0, register_snapshot, 0, register_snapshot.length);
+        }
+        return false;
+    }
+
+    /**
+     * Called by the chip after an instruction has executed.
+     */
+    void afterExecute(){
+        if(watch_hit != null){
+            String reason = watch_hit;
+            watch_hit = null;
+            stepping = false;
+            breakAt(reason);
+            return;
+        }
+        if(register_condition_count > 0){
+            char[] V = chip.getRegisters();
+            for(int i = 0; i < V.length; i++){
+                int condition = register_conditions[i];
+                if(condition != NO_CONDITION && V[i] != register_snapshot[i]
+                        && (condition == ANY_CHANGE || condition == V[i])){
+                    stepping = false;
+                    breakAt(String.format("V%X changed to %02X", i, (int) V[i]));
+                    return;
+                }
+            }
+        }
+        if(stepping){
+            stepping = false;
+            breakAt("Step");
+        }
+    }
+
+    /**
+     * Called by the chip when an instruction reads memory[address] to memory[address + length - 1].
+     */
+    void onRead(int address, int length){
+        if(read_watch_count > 0 && watch_hit == null && any(read_watch, address, length)){
+            watch_hit = String.format("Read of %03X-%03X at %03X", address, address + length - 1, (int) chip.getPc());
+        }
+    }
+
+    /**
+     * Called by the chip when an instruction writes memory[address] to memory[address + length - 1].
+     */
+    void onWrite(int address, int length){
+        if(write_watch_count > 0 && watch_hit == null && any(write_watch, address, length)){
+            watch_hit = String.format("Write of %03X-%03X at %03X", address, address + length - 1, (int) chip.getPc());
+        }
+    }
+
+    private void breakAt(String reason){
+        paused = true;
+        step_pending = false;
+        step_over_pc = -1;
+        step_over_sp = -1;
+        step_out_sp = -1;
+        break_reason = reason;
+        updateArmed();
+        if(on_break != null){
+            on_break.run();
+        }
+    }
+
+    private void updateArmed(){
+        chip.setDebugArmed(paused || stepping || step_pending || skip_breakpoint
+                || step_over_pc >= 0 || step_out_sp >= 0
+                || breakpoint_count > 0 || read_watch_count > 0 || write_watch_count > 0
+                || register_condition_count > 0);
+    }
+
+    private static boolean set(long[] bitmap, int address){
+        address &= 0xFFF;
+        long mask = 1L << address;
+        boolean added = (bitmap[address >> 6] & mask) == 0;
+        bitmap[address >> 6] |= mask;
+        return added;
+    }
+
+    private static boolean clear(long[] bitmap, int address){
+        address &= 0xFFF;
+        long mask = 1L << address;
+        boolean removed = (bitmap[address >> 6] & mask) != 0;
+        bitmap[address >> 6] &= ~mask;
+        return removed;
+    }
+
+    private static boolean test(long[] bitmap, int address){
+        address &= 0xFFF;
+        return (bitmap[address >> 6] & (1L << address)) != 0;
+    }
+
+    private static boolean any(long[] bitmap, int address, int length){
+        for(int i = 0; i < length; i++){
+            if(test(bitmap, address + i)){
+                return true;
+            }
+        }
+        return false;
+    }
+}
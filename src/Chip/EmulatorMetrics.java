@@ -0,0 +1,321 @@
+package Chip;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runtime health of an emulator session: instruction rate against target, frame rate, dropped
+ * cycles, timer drift from 60 Hz, render time, input latency and allocation per frame.
+ * Chip8 updates its timers once per executed instruction, so timer drift is derived from the
+ * instruction rate rather than counted separately.
+ *
+ * The emulation thread records into single-writer counters and lock-free histograms. A sampler
+ * thread turns them into per-interval rates once a second, publishes them through JMX and the
+ * summary line used by the on-screen overlay, and appends them to a rolling log file.
+ * One cycle in every 64 times its own bookkeeping so the overhead is reported with the metrics.
+ */
+public class EmulatorMetrics implements EmulatorMetricsMXBean {
+    private static final double TIMER_TARGET_HZ = 60;
+    private static final int OVERHEAD_SAMPLE_MASK = 63;
+    private static final long PULSE_NANOS = 1000000000L / 60;
+
+    private final double target_ips;
+    private final long cycle_nanos;
+    private final long slack_cycles;
+    private final ObjectName name;
+    private ScheduledExecutorService sampler;
+
+    // Written by the emulation thread
+    private final AtomicLong cycles = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong dropped_cycles = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private final LatencyHistogram render = new LatencyHistogram();
+    private final LatencyHistogram input = new LatencyHistogram();
+    private final LatencyHistogram overhead = new LatencyHistogram();
+    private final com.sun.management.ThreadMXBean threads;
+    private long schedule_start = 0;
+    private long scheduled_calls = 0;
+    private long last_chip_cycles = 0;
+    private long key_event_nanos = 0;
+    private long allocated_mark = -1;
+    private int calls = 0;
+
+    // Written by the sampler thread
+    private long sampled_cycles, sampled_frames, sampled_allocated, sampled_nanos;
+    private volatile double ips, fps;
+    private volatile long render_p50, render_p99, input_p50, input_p99, alloc_per_frame, overhead_p50, overhead_p99;
+    private volatile String summary = "";
+
+    private File log_file;
+    private long log_max_bytes;
+    private int log_max_files;
+
+    /**
+     * @param instanceName name of this emulator in JMX and the log
+     * @param cycleMicros duration the emulator schedules for one cycle
+     */
+    public EmulatorMetrics(String instanceName, int cycleMicros) {
+        target_ips = 1000000.0 / cycleMicros;
+        cycle_nanos = cycleMicros * 1000L;
+        // The Timeline only runs handlers on pulses, so a healthy session can trail by up to a pulse
+        slack_cycles = (PULSE_NANOS + cycle_nanos - 1) / cycle_nanos + 1;
+        ObjectName object_name = null;
+        try {
+            object_name = new ObjectName("Chip8:type=EmulatorMetrics,name=" + ObjectName.quote(instanceName));
+        } catch (JMException e){
+            e.printStackTrace();
+        }
+        name = object_name;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = null;
+        if(bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()){
+            allocation = (com.sun.management.ThreadMXBean) bean;
+            allocation.setThreadAllocatedMemoryEnabled(true);
+        }
+        threads = allocation;
+    }
+
+    /**
+     * Appends one line per sample to file, rolling it to file.1 ... file.N when it grows past maxBytes.
+     * Call before start().
+     */
+    public void setLogFile(File file, long maxBytes, int maxFiles){
+        log_file = file;
+        log_max_bytes = maxBytes;
+        log_max_files = maxFiles;
+    }
+
+    /**
+     * Registers the JMX bean and starts sampling every intervalMillis.
+     */
+    public void start(long intervalMillis){
+        if(name != null){
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if(!server.isRegistered(name)){
+                    server.registerMBean(this, name);
+                }
+            } catch (JMException e){
+                e.printStackTrace();
+            }
+        }
+        sampled_nanos = System.nanoTime();
+        sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "chip8-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop(){
+        if(sampler != null){
+            sampler.shutdown();
+            sampler = null;
+        }
+        if(name != null){
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if(server.isRegistered(name)){
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Records one emulator cycle. Call on the emulation thread right after Chip8.run().
+     */
+    public void onCycle(Chip8 chip){
+        long now = System.nanoTime();
+        // Compare handler calls against the schedule. Calls that trail it by more than a pulse are
+        // counted as dropped once and the schedule moves forward, so one stall is not counted again.
+        if(schedule_start == 0){
+            schedule_start = now;
+        }
+        scheduled_calls++;
+        long behind = (now - schedule_start) / cycle_nanos - scheduled_calls - slack_cycles;
+        if(behind > 0){
+            dropped_cycles.lazySet(dropped_cycles.get() + behind);
+            schedule_start += behind * cycle_nanos;
+        }
+
+        // Chip8.init() restarts the chip's counter, only count what happened since the last cycle
+        long chip_cycles = chip.getCycles();
+        cycles.lazySet(cycles.get() + Math.max(0, chip_cycles - last_chip_cycles));
+        last_chip_cycles = chip_cycles;
+
+        if(key_event_nanos != 0){
+            input.record(now - key_event_nanos);
+            key_event_nanos = 0;
+        }
+        if((++calls & OVERHEAD_SAMPLE_MASK) == 0){
+            overhead.record(System.nanoTime() - now);
+        }
+    }
+
+    /**
+     * Records when a key event arrived. The time until the next cycle picks it up is the input latency.
+     */
+    public void onKeyEvent(){
+        if(key_event_nanos == 0){
+            key_event_nanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return start time to pass to endFrame()
+     */
+    public long beginFrame(){
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a rendered frame and the bytes the rendering thread allocated since the previous frame.
+     */
+    public void endFrame(long start){
+        render.record(System.nanoTime() - start);
+        frames.lazySet(frames.get() + 1);
+        if(threads != null){
+            long total = threads.getCurrentThreadAllocatedBytes();
+            if(allocated_mark >= 0){
+                allocated.lazySet(allocated.get() + (total - allocated_mark));
+            }
+            allocated_mark = total;
+        }
+    }
+
+    /**
+     * One line description of the last interval for the on-screen overlay.
+     */
+    public String getSummary() {return summary;}
+
+    private void sample(){
+        long now = System.nanoTime();
+        double seconds = (now - sampled_nanos) / 1e9;
+        sampled_nanos = now;
+
+        long cycles_now = cycles.get();
+        long frames_now = frames.get();
+        long allocated_now = allocated.get();
+        long frame_count = frames_now - sampled_frames;
+        ips = (cycles_now - sampled_cycles) / seconds;
+        fps = frame_count / seconds;
+        alloc_per_frame = frame_count == 0 ? 0 : (allocated_now - sampled_allocated) / frame_count;
+        sampled_cycles = cycles_now;
+        sampled_frames = frames_now;
+        sampled_allocated = allocated_now;
+
+        LatencyHistogram.Snapshot render_snapshot = render.drain();
+        LatencyHistogram.Snapshot input_snapshot = input.drain();
+        LatencyHistogram.Snapshot overhead_snapshot = overhead.drain();
+        render_p50 = render_snapshot.getValueAtPercentile(50);
+        render_p99 = render_snapshot.getValueAtPercentile(99);
+        input_p50 = input_snapshot.getValueAtPercentile(50);
+        input_p99 = input_snapshot.getValueAtPercentile(99);
+        overhead_p50 = overhead_snapshot.getValueAtPercentile(50);
+        overhead_p99 = overhead_snapshot.getValueAtPercentile(99);
+
+        summary = String.format("%.0f/%.0f ips  %.1f fps  %d dropped cycles  timer drift %+.1f Hz  render p99 %d us",
+                ips, target_ips, fps, dropped_cycles.get(), getTimerDriftHz(), render_p99 / 1000);
+
+        if(log_file != null){
+            writeLog();
+        }
+    }
+
+    private void writeLog(){
+        try {
+            boolean fresh = !log_file.exists();
+            if(!fresh && log_file.length() > log_max_bytes){
+                roll();
+                fresh = true;
+            }
+            try (Writer writer = new FileWriter(log_file, true)) {
+                if(fresh){
+                    writer.write("time_ms,ips,target_ips,fps,dropped_cycles,timer_drift_hz,render_p50_ns,render_p99_ns,"
+                            + "input_p50_ns,input_p99_ns,alloc_per_frame,overhead_p50_ns,overhead_p99_ns\n");
+                }
+                writer.write(String.format("%d,%.1f,%.1f,%.1f,%d,%.1f,%d,%d,%d,%d,%d,%d,%d%n",
+                        System.currentTimeMillis(), ips, target_ips, fps, dropped_cycles.get(), getTimerDriftHz(),
+                        render_p50, render_p99, input_p50, input_p99, alloc_per_frame, overhead_p50, overhead_p99));
+            }
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    private void roll(){
+        File oldest = new File(log_file.getPath() + "." + log_max_files);
+        oldest.delete();
+        for(int i = log_max_files - 1; i >= 1; i--){
+            File from = new File(log_file.getPath() + "." + i);
+            if(from.exists()){
+                from.renameTo(new File(log_file.getPath() + "." + (i + 1)));
+            }
+        }
+        log_file.renameTo(new File(log_file.getPath() + ".1"));
+    }
+
+    @Override
+    public double getInstructionsPerSecond() {return ips;}
+
+    @Override
+    public double getTargetInstructionsPerSecond() {return target_ips;}
+
+    @Override
+    public double getFramesPerSecond() {return fps;}
+
+    @Override
+    public long getDroppedCycles() {return dropped_cycles.get();}
+
+    @Override
+    public double getTimerHz() {return ips;}
+
+    @Override
+    public double getTimerDriftHz() {return getTimerHz() - TIMER_TARGET_HZ;}
+
+    @Override
+    public long getRenderNanosP50() {return render_p50;}
+
+    @Override
+    public long getRenderNanosP99() {return render_p99;}
+
+    @Override
+    public long getInputLatencyNanosP50() {return input_p50;}
+
+    @Override
+    public long getInputLatencyNanosP99() {return input_p99;}
+
+    @Override
+    public long getAllocatedBytesPerFrame() {return alloc_per_frame;}
+
+    @Override
+    public long getMetricsOverheadNanosP50() {return overhead_p50;}
+
+    @Override
+    public long getMetricsOverheadNanosP99() {return overhead_p99;}
+}
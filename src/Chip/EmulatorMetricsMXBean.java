@@ -0,0 +1,41 @@
+package Chip;
+
+/**
+ * JMX view of EmulatorMetrics. Rates and percentiles cover the last sampling interval.
+ */
+public interface EmulatorMetricsMXBean {
+    double getInstructionsPerSecond();
+
+    double getTargetInstructionsPerSecond();
+
+    double getFramesPerSecond();
+
+    /**
+     * Emulator cycles that fell more than one pulse behind the cycle schedule, counted once per stall.
+     */
+    long getDroppedCycles();
+
+    /**
+     * Chip8 updates its timers once per executed instruction, not on a 60 Hz clock, so this is the instruction rate.
+     */
+    double getTimerHz();
+
+    /**
+     * Timer rate minus the 60 Hz CHIP-8 timers are meant to run at.
+     */
+    double getTimerDriftHz();
+
+    long getRenderNanosP50();
+
+    long getRenderNanosP99();
+
+    long getInputLatencyNanosP50();
+
+    long getInputLatencyNanosP99();
+
+    long getAllocatedBytesPerFrame();
+
+    long getMetricsOverheadNanosP50();
+
+    long getMetricsOverheadNanosP99();
+}
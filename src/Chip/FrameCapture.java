@@ -0,0 +1,403 @@
+package Chip;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Records every frame the emulator shows into a compact binary file.
+ *
+ * capture() is called once per emulator cycle. Frames identical to the previous one only extend
+ * how long that frame is held, changed frames are handed to a background writer thread which
+ * delta-encodes them and streams them through a buffered FileChannel. The emulation thread never
+ * blocks: when the writer falls behind and all frame buffers are in use the frame is dropped and
+ * retried on the next cycle.
+ *
+ * File layout: "C8FC", version, width, height, int microseconds per cycle, then records of
+ * (type, varint cycles the previous frame was held, payload) ending with an END record.
+ * A DROP record marks where frames were lost; its payload is the varint number of cycles on which
+ * a changed frame could not be recorded. A file without an END record was cut short.
+ */
+public class FrameCapture {
+    static final byte[] MAGIC = {'C', '8', 'F', 'C'};
+    static final int VERSION = 1;
+
+    static final int RECORD_END = 0;
+    static final int RECORD_KEY = 1;
+    static final int RECORD_DELTA = 2;
+    static final int RECORD_DROP = 3;
+
+    /** A full frame is written at least this often, so a corrupted delta only affects frames up to the next one. */
+    private static final int KEYFRAME_INTERVAL = 300;
+
+    private static final class Frame {
+        final byte[] bits;
+        int held;
+        int dropped;        // Cycles on which a changed frame was dropped before this one
+        int held_to_drop;   // Cycles the previous frame was held before the first drop
+
+        Frame(byte[] bits) {
+            this.bits = bits;
+        }
+    }
+
+    private final ArrayBlockingQueue<Frame> free;
+    private final ArrayBlockingQueue<Frame> pending;
+    private final FileChannel channel;
+    private final int cycleMicros;
+    private final Thread writer;
+
+    // Emulation thread state
+    private final byte[] scratch = new byte[FrameCodec.PACKED_SIZE];
+    private final byte[] last = new byte[FrameCodec.PACKED_SIZE];
+    private long last_hash;
+    private boolean has_last = false;
+    private int held = 0;
+    private boolean dropped_pending = false;    // A changed frame was dropped and must be retried
+    private int drop_count = 0;                 // Drops not yet written to the file
+    private int held_to_drop = 0;
+    private boolean closed = false;
+
+    private volatile long captured_frames = 0;
+    private volatile long skipped_frames = 0;
+    private volatile long dropped_frames = 0;
+    private volatile IOException failure;
+
+    /**
+     * Opens the capture file and starts the writer thread.
+     * @param file destination file, overwritten if it exists
+     * @param cycleMicros duration of one emulator cycle in microseconds
+     * @param queueDepth number of changed frames that may wait for the writer
+     */
+    public FrameCapture(File file, int cycleMicros, int queueDepth) throws IOException {
+        this.cycleMicros = cycleMicros;
+        free = new ArrayBlockingQueue<>(queueDepth);
+        pending = new ArrayBlockingQueue<>(queueDepth + 1);
+        for(int i = 0; i < queueDepth; i++){
+            free.add(new Frame(new byte[FrameCodec.PACKED_SIZE]));
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "chip8-frame-capture");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records the frame currently on the chip's display. Call once per cycle, before the draw flag is cleared.
+     */
+    public void capture(Chip8 chip){
+        if(closed){
+            return;
+        }
+        if(has_last && !dropped_pending && !chip.needsRedraw()){
+            held++;
+            skipped_frames++;
+            return;
+        }
+        FrameCodec.pack(chip.getDisplay(), scratch);
+        long hash = FrameCodec.hash(scratch);
+        if(has_last && hash == last_hash && Arrays.equals(scratch, last)){
+            held++;
+            skipped_frames++;
+            dropped_pending = false;
+            return;
+        }
+        Frame frame = free.poll();
+        if(frame == null){
+            // Writer is behind, keep showing the last recorded frame
+            if(drop_count == 0){
+                held_to_drop = held;
+            }
+            held++;
+            drop_count++;
+            dropped_frames++;
+            dropped_pending = true;
+            return;
+        }
+        queue(frame);
+
+        last_hash = hash;
+    }
+
+    /**
+     * Hands the frame in scratch to the writer along with any drops before it.
+     */
+    private void queue(Frame frame){
+        System.arraycopy(scratch, 0, frame.bits, 0, FrameCodec.PACKED_SIZE);
+        fillHeld(frame);
+        pending.offer(frame);
+
+        System.arraycopy(scratch, 0, last, 0, FrameCodec.PACKED_SIZE);
+        has_last = true;
+        dropped_pending = false;
+        held = 1;
+        captured_frames++;
+    }
+
+    private void fillHeld(Frame frame){
+        frame.dropped = drop_count;
+        if(drop_count > 0){
+            frame.held_to_drop = held_to_drop;
+            frame.held = held - held_to_drop;
+        } else {
+            frame.held = held;
+        }
+        drop_count = 0;
+    }
+
+    /**
+     * Writes the end record, waits for the writer to drain and closes the file.
+     */
+    public void close() throws IOException {
+        if(closed){
+            return;
+        }
+        closed = true;
+        try {
+            if(dropped_pending){
+                // The screen still shows a frame that was dropped, wait for a buffer so the file ends on it
+                queue(free.take());
+                held = 0;   // The frame was already on screen for the cycles counted before it
+            }
+            Frame end = new Frame(null);
+            fillHeld(end);
+            pending.put(end);
+            writer.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        if(failure != null){
+            throw failure;
+        }
+    }
+
+    public long getCapturedFrames() {return captured_frames;}
+
+    public long getSkippedFrames() {return skipped_frames;}
+
+    public long getDroppedFrames() {return dropped_frames;}
+
+    private void writeLoop(){
+        ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024);
+        byte[] previous = new byte[FrameCodec.PACKED_SIZE];
+        int since_key = KEYFRAME_INTERVAL;
+        try {
+            out.put(MAGIC);
+            out.put((byte) VERSION);
+            out.put((byte) FrameCodec.WIDTH);
+            out.put((byte) FrameCodec.HEIGHT);
+            out.putInt(cycleMicros);
+            while(true){
+                Frame frame = pending.take();
+                if(out.remaining() < FrameCodec.MAX_DELTA_SIZE + 32){
+                    flush(out);
+                }
+                if(frame.dropped > 0){
+                    out.put((byte) RECORD_DROP);
+                    FrameCodec.putVarInt(out, frame.held_to_drop);
+                    FrameCodec.putVarInt(out, frame.dropped);
+                }
+                if(frame.bits == null){
+                    out.put((byte) RECORD_END);
+                    FrameCodec.putVarInt(out, frame.held);
+                    break;
+                }
+                int start = out.position();
+                boolean key = since_key >= KEYFRAME_INTERVAL;
+                if(!key){
+                    out.put((byte) RECORD_DELTA);
+                    FrameCodec.putVarInt(out, frame.held);
+                    if(FrameCodec.encodeDelta(previous, frame.bits, out) >= FrameCodec.PACKED_SIZE){
+                        out.position(start);
+                        key = true;
+                    }
+                }
+                if(key){
+                    out.put((byte) RECORD_KEY);
+                    FrameCodec.putVarInt(out, frame.held);
+                    out.put(frame.bits);
+                    since_key = 0;
+                } else {
+                    since_key++;
+                }
+                System.arraycopy(frame.bits, 0, previous, 0, FrameCodec.PACKED_SIZE);
+                free.offer(frame);
+            }
+            flush(out);
+        } catch (IOException e){
+            failure = e;
+            e.printStackTrace();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } finally {
+            try { channel.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    private void flush(ByteBuffer out) throws IOException {
+        out.flip();
+        while(out.hasRemaining()){
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Converts a capture file into an animated GIF. Frames shorter than the GIF timer resolution
+     * of 10ms are merged into the frame that follows them. A file that was cut short is exported
+     * up to its last complete record.
+     * @param capture file written by FrameCapture
+     * @param gif destination file
+     * @param scale size of one CHIP-8 pixel in the GIF
+     */
+    public static void exportGif(File capture, File gif, int scale) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(capture.toPath()));
+        byte[] magic = new byte[MAGIC.length];
+        if(in.remaining() < MAGIC.length + 7){
+            throw new IOException("Not a CHIP-8 frame capture: " + capture);
+        }
+        in.get(magic);
+        if(!Arrays.equals(magic, MAGIC) || in.get() != VERSION){
+            throw new IOException("Not a CHIP-8 frame capture: " + capture);
+        }
+        in.get(); // width
+        in.get(); // height
+        long cycle_micros = in.getInt();
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        IndexColorModel colors = new IndexColorModel(1, 2,
+                new byte[]{0, (byte) 0xFF}, new byte[]{0, (byte) 0xFF}, new byte[]{0, (byte) 0xFF});
+        BufferedImage image = new BufferedImage(FrameCodec.WIDTH * scale, FrameCodec.HEIGHT * scale,
+                BufferedImage.TYPE_BYTE_BINARY, colors);
+        byte[] shown = null;
+        long shown_micros = 0;
+        long missing = 0;
+        boolean first = true;
+        boolean ended = false;
+
+        Files.deleteIfExists(gif.toPath());
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(gif)) {
+            writer.setOutput(output);
+            writer.prepareWriteSequence(null);
+            while(in.hasRemaining()){
+                // Decode the whole record before using it, so a cut off record is ignored
+                int type;
+                long held;
+                int dropped = 0;
+                byte[] next = null;
+                try {
+                    type = in.get();
+                    held = FrameCodec.getVarInt(in) * cycle_micros;
+                    if(type == RECORD_KEY){
+                        next = new byte[FrameCodec.PACKED_SIZE];
+                        in.get(next);
+                    } else if(type == RECORD_DELTA){
+                        if(shown == null){
+                            throw new IOException("Corrupt frame capture: delta before first keyframe");
+                        }
+                        next = shown.clone();
+                        FrameCodec.applyDelta(in, next);
+                    } else if(type == RECORD_DROP){
+                        dropped = FrameCodec.getVarInt(in);
+                    } else if(type != RECORD_END){
+                        throw new IOException("Corrupt frame capture record: " + type);
+                    }
+                } catch (BufferUnderflowException e){
+                    break;
+                } catch (IndexOutOfBoundsException e){
+                    throw new IOException("Corrupt frame capture: delta outside the display", e);
+                }
+                shown_micros += held;
+                if(type == RECORD_END){
+                    ended = true;
+                    break;
+                }
+                if(type == RECORD_DROP){
+                    missing += dropped;
+                    continue;
+                }
+                if(shown != null && shown_micros >= 10000){
+                    int delay = (int) (shown_micros / 10000);
+                    shown_micros -= delay * 10000L;
+                    writeGifFrame(writer, image, colors, shown, scale, delay, first);
+                    first = false;
+                }
+                shown = next;
+            }
+            if(shown != null){
+                writeGifFrame(writer, image, colors, shown, scale, (int) Math.max(1, shown_micros / 10000), first);
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+        if(!ended){
+            System.err.println("Frame capture " + capture + " is truncated, exported up to the last complete record");
+        }
+        if(missing > 0){
+            System.err.println("Frame capture " + capture + " is missing frames from " + missing + " cycles");
+        }
+    }
+
+    private static void writeGifFrame(ImageWriter writer, BufferedImage image, IndexColorModel colors,
+                                      byte[] packed, int scale, int delay, boolean first) throws IOException {
+        for(int y = 0; y < FrameCodec.HEIGHT; y++){
+            for(int x = 0; x < FrameCodec.WIDTH; x++){
+                int index = y * FrameCodec.WIDTH + x;
+                int rgb = (packed[index >> 3] >> (7 - (index & 7)) & 0x1) == 1 ? 0xFFFFFF : 0;
+                for(int sy = 0; sy < scale; sy++){
+                    for(int sx = 0; sx < scale; sx++){
+                        image.setRGB(x * scale + sx, y * scale + sy, rgb);
+                    }
+                }
+            }
+        }
+
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), null);
+        String format = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+
+        IIOMetadataNode control = new IIOMetadataNode("GraphicControlExtension");
+        control.setAttribute("disposalMethod", "none");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", "FALSE");
+        control.setAttribute("delayTime", Integer.toString(delay));
+        control.setAttribute("transparentColorIndex", "0");
+        root.appendChild(control);
+
+        if(first){
+            // Loop forever
+            IIOMetadataNode extensions = new IIOMetadataNode("ApplicationExtensions");
+            IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+            loop.setAttribute("applicationID", "NETSCAPE");
+            loop.setAttribute("authenticationCode", "2.0");
+            loop.setUserObject(new byte[]{0x1, 0, 0});
+            extensions.appendChild(loop);
+            root.appendChild(extensions);
+        }
+        metadata.setFromTree(format, root);
+        writer.writeToSequence(new IIOImage(image, null, metadata), null);
+    }
+}
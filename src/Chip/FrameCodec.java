@@ -0,0 +1,116 @@
+package Chip;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs the 64x32 CHIP-8 display into bits and delta-encodes packed frames against each other.
+ * A packed frame is 256 bytes, one bit per pixel, most significant bit first, row by row.
+ */
+public final class FrameCodec {
+    public static final int WIDTH = 64;
+    public static final int HEIGHT = 32;
+    public static final int PACKED_SIZE = WIDTH * HEIGHT / 8;
+
+    /** Largest possible delta: a varint count plus one (gap, xor) pair per packed byte. */
+    public static final int MAX_DELTA_SIZE = 2 + PACKED_SIZE * 3;
+
+    private FrameCodec() {}
+
+    /**
+     * Packs the display array (one byte per pixel) into bits.
+     * @param display display array returned by Chip8.getDisplay()
+     * @param packed destination, PACKED_SIZE bytes
+     */
+    public static void pack(byte[] display, byte[] packed){
+        for(int i = 0; i < PACKED_SIZE; i++){
+            int base = i << 3;
+            int bits = 0;
+            for(int b = 0; b < 8; b++){
+                bits = (bits << 1) | (display[base + b] & 0x1);
+            }
+            packed[i] = (byte) bits;
+        }
+    }
+
+    /**
+     * Expands packed bits back into a display array of one byte per pixel.
+     */
+    public static void unpack(byte[] packed, byte[] display){
+        for(int i = 0; i < PACKED_SIZE; i++){
+            int bits = packed[i];
+            int base = i << 3;
+            for(int b = 0; b < 8; b++){
+                display[base + b] = (byte) ((bits >> (7 - b)) & 0x1);
+            }
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a packed frame.
+     */
+    public static long hash(byte[] packed){
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < PACKED_SIZE; i++){
+            h ^= packed[i] & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Writes the bytes that differ between two packed frames.
+     * Layout: varint count, then count pairs of (varint gap since last changed byte, xor byte).
+     * @return number of bytes written to out
+     */
+    public static int encodeDelta(byte[] previous, byte[] current, ByteBuffer out){
+        int start = out.position();
+        int changed = 0;
+        for(int i = 0; i < PACKED_SIZE; i++){
+            if(previous[i] != current[i]){
+                changed++;
+            }
+        }
+        putVarInt(out, changed);
+        int last = 0;
+        for(int i = 0; i < PACKED_SIZE; i++){
+            if(previous[i] != current[i]){
+                putVarInt(out, i - last);
+                out.put((byte) (previous[i] ^ current[i]));
+                last = i;
+            }
+        }
+        return out.position() - start;
+    }
+
+    /**
+     * Applies a delta written by encodeDelta to a packed frame in place.
+     */
+    public static void applyDelta(ByteBuffer in, byte[] frame){
+        int changed = getVarInt(in);
+        int index = 0;
+        for(int i = 0; i < changed; i++){
+            index += getVarInt(in);
+            frame[index] ^= in.get();
+        }
+    }
+
+    public static void putVarInt(ByteBuffer out, int value){
+        while((value & ~0x7F) != 0){
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static int getVarInt(ByteBuffer in){
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,363 @@
+package Chip;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the display to TCP clients on localhost and accepts their key presses.
+ *
+ * Each changed frame is encoded once on the emulation thread and the same read-only buffer is
+ * queued for every client, so the cost per frame does not grow with the number of clients.
+ * A single non-blocking selector thread does all socket I/O. A client that falls too far behind
+ * has its backlog dropped and is sent a full frame instead.
+ *
+ * Every message is a type byte, a big endian 16 bit payload length and the payload.
+ * Server to client: MSG_KEYFRAME with the 256 byte packed display, or MSG_DELTA with a
+ * FrameCodec delta against the previous frame. Client to server: MSG_KEYS with a 2 byte payload,
+ * the 16 bit mask of the CHIP-8 keys the client is holding down.
+ */
+public class FrameServer {
+    public static final int MSG_KEYFRAME = 1;
+    public static final int MSG_DELTA = 2;
+    public static final int MSG_KEYS = 3;
+
+    private static final int HEADER_SIZE = 3;
+    private static final int KEYS_SIZE = 2;
+    private static final int MAX_PENDING_FRAMES = 64;
+    private static final int MAX_CLIENT_BACKLOG = 32;
+
+    private static final class Client {
+        final SocketChannel channel;
+        final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        final ByteBuffer in = ByteBuffer.allocate(64);
+        boolean needs_keyframe = true;
+        int keys = 0;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ArrayList<Client> clients = new ArrayList<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outbound_size = new AtomicInteger();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile int remote_keys = 0;
+    private volatile int client_count = 0;
+
+    // Emulation thread state
+    private final byte[] scratch = new byte[FrameCodec.PACKED_SIZE];
+    private final byte[] last = new byte[FrameCodec.PACKED_SIZE];
+    private final int[] merged_keys = new int[16];
+    private final ByteBuffer encode = ByteBuffer.allocate(HEADER_SIZE + FrameCodec.MAX_DELTA_SIZE);
+    private boolean has_last = false;
+    private boolean resync = false;     // A changed frame was skipped, send a full frame next
+
+    // Selector thread state
+    private final byte[] current = new byte[FrameCodec.PACKED_SIZE];
+
+    /**
+     * Binds to the loopback interface and starts the selector thread.
+     * @param port TCP port, or 0 for any free port
+     */
+    public FrameServer(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "chip8-frame-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {return server.socket().getLocalPort();}
+
+    public int getClientCount() {return client_count;}
+
+    /**
+     * Queues the chip's display for every client if it changed. Call once per cycle, before the draw flag is cleared.
+     */
+    public void publish(Chip8 chip){
+        if(has_last && !resync && !chip.needsRedraw()){
+            return;
+        }
+        FrameCodec.pack(chip.getDisplay(), scratch);
+        if(has_last && Arrays.equals(scratch, last)){
+            // Clients already hold this frame, even if a later one was skipped
+            resync = false;
+            return;
+        }
+        if(outbound_size.get() >= MAX_PENDING_FRAMES){
+            // Selector thread is behind, send a full frame once it catches up
+            resync = true;
+            return;
+        }
+        encode.clear();
+        encode.position(HEADER_SIZE);
+        int type = MSG_KEYFRAME;
+        if(has_last && !resync && FrameCodec.encodeDelta(last, scratch, encode) < FrameCodec.PACKED_SIZE){
+            type = MSG_DELTA;
+        } else {
+            encode.position(HEADER_SIZE);
+            encode.put(scratch);
+        }
+        int length = encode.position() - HEADER_SIZE;
+        encode.put(0, (byte) type);
+        encode.putShort(1, (short) length);
+        encode.flip();
+
+        ByteBuffer message = ByteBuffer.allocate(encode.remaining());
+        message.put(encode);
+        message.flip();
+        outbound.add(message.asReadOnlyBuffer());
+        outbound_size.incrementAndGet();
+        selector.wakeup();
+
+        System.arraycopy(scratch, 0, last, 0, FrameCodec.PACKED_SIZE);
+        has_last = true;
+        resync = false;
+    }
+
+    /**
+     * Combines the local key buffer with the keys held by remote clients.
+     * @return a buffer owned by the server that stays valid until the next call
+     */
+    public int[] mergeKeys(int[] keyBuffer){
+        int remote = remote_keys;
+        for(int i = 0; i < merged_keys.length; i++){
+            merged_keys[i] = keyBuffer[i] | ((remote >> i) & 0x1);
+        }
+        return merged_keys;
+    }
+
+    /**
+     * Disconnects every client and stops the selector thread.
+     */
+    public void close(){
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve(){
+        try {
+            while(running){
+                selector.select();
+                dispatchFrames();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(!key.isValid()){
+                        continue;
+                    }
+                    if(key.isAcceptable()){
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    try {
+                        if(key.isReadable()){
+                            read(client);
+                        }
+                        if(key.isValid() && key.isWritable()){
+                            write(client);
+                        }
+                    } catch (IOException e){
+                        disconnect(client);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e){
+            e.printStackTrace();
+        } finally {
+            for(Client client : new ArrayList<>(clients)){
+                disconnect(client);
+            }
+            try { server.close(); } catch (IOException e) { e.printStackTrace(); }
+            try { selector.close(); } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    /**
+     * Accepts one pending connection. A connection that fails while being set up is closed
+     * without affecting the server or the other clients.
+     */
+    private void accept(){
+        SocketChannel channel = null;
+        try {
+            channel = server.accept();
+            if(channel == null){
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Client client = new Client(channel);
+            channel.register(selector, SelectionKey.OP_READ, client);
+            clients.add(client);
+        } catch (IOException e){
+            if(channel != null){
+                try { channel.close(); } catch (IOException ex) { ex.printStackTrace(); }
+            }
+            return;
+        }
+        client_count = clients.size();
+        sendKeyframes();
+    }
+
+    /**
+     * Fans the frames queued by publish() out to every client.
+     */
+    private void dispatchFrames(){
+        ByteBuffer message;
+        boolean any = false;
+        while((message = outbound.poll()) != null){
+            outbound_size.decrementAndGet();
+            any = true;
+            ByteBuffer payload = message.duplicate();
+            int type = payload.get();
+            payload.position(HEADER_SIZE);
+            if(type == MSG_KEYFRAME){
+                payload.get(current);
+            } else {
+                FrameCodec.applyDelta(payload, current);
+            }
+            for(Client client : clients){
+                if(client.needs_keyframe){
+                    continue;
+                }
+                if(client.queue.size() >= MAX_CLIENT_BACKLOG){
+                    dropBacklog(client);
+                    continue;
+                }
+                client.queue.add(message.duplicate());
+            }
+        }
+        if(any){
+            sendKeyframes();
+        }
+    }
+
+    /**
+     * Queues one shared full frame for every client that needs to resync.
+     */
+    private void sendKeyframes(){
+        ByteBuffer keyframe = null;
+        for(Client client : clients){
+            if(client.needs_keyframe){
+                if(keyframe == null){
+                    keyframe = ByteBuffer.allocate(HEADER_SIZE + FrameCodec.PACKED_SIZE);
+                    keyframe.put((byte) MSG_KEYFRAME);
+                    keyframe.putShort((short) FrameCodec.PACKED_SIZE);
+                    keyframe.put(current);
+                    keyframe.flip();
+                    keyframe = keyframe.asReadOnlyBuffer();
+                }
+                client.queue.add(keyframe.duplicate());
+                client.needs_keyframe = false;
+            }
+        }
+        for(Client client : clients){
+            if(!client.queue.isEmpty()){
+                SelectionKey key = client.channel.keyFor(selector);
+                if(key != null && key.isValid()){
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every queued frame except one that is partially written and marks the client for a full frame.
+     */
+    private void dropBacklog(Client client){
+        ByteBuffer head = client.queue.peek();
+        client.queue.clear();
+        if(head != null && head.position() > 0){
+            client.queue.add(head);
+        }
+        client.needs_keyframe = true;
+    }
+
+    private void read(Client client) throws IOException {
+        if(client.channel.read(client.in) < 0){
+            disconnect(client);
+            return;
+        }
+        client.in.flip();
+        while(client.in.remaining() >= HEADER_SIZE){
+            int start = client.in.position();
+            int type = client.in.get(start);
+            int length = client.in.getShort(start + 1) & 0xFFFF;
+            if(type != MSG_KEYS || length != KEYS_SIZE){
+                disconnect(client);
+                return;
+            }
+            if(client.in.remaining() < HEADER_SIZE + KEYS_SIZE){
+                break;
+            }
+            client.in.position(start + HEADER_SIZE);
+            client.keys = client.in.getShort() & 0xFFFF;
+            updateRemoteKeys();
+        }
+        client.in.compact();
+    }
+
+    private void write(Client client) throws IOException {
+        ByteBuffer head;
+        while((head = client.queue.peek()) != null){
+            client.channel.write(head);
+            if(head.hasRemaining()){
+                return;
+            }
+            client.queue.poll();
+        }
+        client.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+    }
+
+    private void disconnect(Client client){
+        SelectionKey key = client.channel.keyFor(selector);
+        if(key != null){
+            key.cancel();
+        }
+        try { client.channel.close(); } catch (IOException e) { e.printStackTrace(); }
+        clients.remove(client);
+        client_count = clients.size();
+        updateRemoteKeys();
+    }
+
+    private void updateRemoteKeys(){
+        int keys = 0;
+        for(Client client : clients){
+            keys |= client.keys;
+        }
+        remote_keys = keys;
+    }
+}
@@ -0,0 +1,92 @@
+package Chip;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram in the style of HdrHistogram.
+ *
+ * Every power of two is split into 32 linear sub-buckets, so recorded values keep about 3% precision
+ * from 1 up to Long.MAX_VALUE in a fixed array. record() is safe from any thread and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long value){
+        counts.incrementAndGet(indexOf(Math.max(0, value)));
+    }
+
+    /**
+     * Copies the counts into a snapshot and clears them, so each snapshot covers one interval.
+     */
+    public Snapshot drain(){
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            copy[i] = counts.getAndSet(i, 0);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total);
+    }
+
+    static int indexOf(long value){
+        if(value < SUB_BUCKETS * 2){
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Highest value that falls into bucket index.
+     */
+    static long valueOf(int index){
+        if(index < SUB_BUCKETS * 2){
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long top = (index & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Counts taken by drain().
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long total;
+
+        Snapshot(long[] counts, long total) {
+            this.counts = counts;
+            this.total = total;
+        }
+
+        public long getCount() {return total;}
+
+        /**
+         * @param percentile between 0 and 100
+         * @return upper bound of the value at the percentile, or 0 when empty
+         */
+        public long getValueAtPercentile(double percentile){
+            if(total == 0){
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++){
+                seen += counts[i];
+                if(seen >= rank){
+                    return valueOf(i);
+                }
+            }
+            return valueOf(counts.length - 1);
+        }
+
+        public long getMax(){
+            return getValueAtPercentile(100);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package Chip;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.IOException;
+
+/**
+ * Plays samples through the default javax.sound.sampled output line.
+ */
+public class LineAudioSink implements AudioSink {
+    private final int bufferMillis;
+    private SourceDataLine line;
+
+    /**
+     * @param bufferMillis size of the line's buffer, the upper bound for the latency Beeper can choose
+     */
+    public LineAudioSink(int bufferMillis) {
+        this.bufferMillis = bufferMillis;
+    }
+
+    @Override
+    public void open(float sampleRate) throws IOException {
+        AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, false);
+        try {
+            line = AudioSystem.getSourceDataLine(format);
+            line.open(format, (int) (sampleRate * bufferMillis / 1000) * 2);
+        } catch (LineUnavailableException | IllegalArgumentException e){
+            throw new IOException("No audio output line available", e);
+        }
+        line.start();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+        line.write(buffer, offset, length);
+    }
+
+    @Override
+    public int queuedFrames() {
+        return (line.getBufferSize() - line.available()) / 2;
+    }
+
+    @Override
+    public int capacityFrames() {
+        return line.getBufferSize() / 2;
+    }
+
+    @Override
+    public void close() {
+        if(line != null){
+            line.stop();
+            line.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package Chip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sink for headless runs. Samples are written to a WAV file, or discarded when no file is given,
+ * and are treated as played back in real time so Beeper paces itself as it would with a sound card.
+ */
+public class WavAudioSink implements AudioSink {
+    private static final int HEADER_SIZE = 44;
+    private static final int CAPACITY_MILLIS = 250;
+
+    private final File file;
+    private FileChannel channel;
+    private float sample_rate;
+    private long written_frames;
+    private long start_nanos;
+
+    /**
+     * @param file destination WAV file, or null to discard samples
+     */
+    public WavAudioSink(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void open(float sampleRate) throws IOException {
+        sample_rate = sampleRate;
+        written_frames = 0;
+        start_nanos = System.nanoTime();
+        if(file != null){
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            channel.write(header(0));
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        if(channel != null){
+            ByteBuffer data = ByteBuffer.wrap(buffer, offset, length);
+            while(data.hasRemaining()){
+                channel.write(data);
+            }
+        }
+        written_frames += length / 2;
+    }
+
+    @Override
+    public int queuedFrames() {
+        long now = System.nanoTime();
+        long played = (long) ((now - start_nanos) / 1e9 * sample_rate);
+        if(played > written_frames){
+            // Ran dry: like a real line, resume playing from now instead of owing the missed time
+            start_nanos = now - (long) (written_frames * 1e9 / sample_rate);
+            return 0;
+        }
+        return (int) (written_frames - played);
+    }
+
+    @Override
+    public int capacityFrames() {
+        return (int) (sample_rate * CAPACITY_MILLIS / 1000);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(channel != null){
+            channel.write(header(written_frames * 2), 0);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private ByteBuffer header(long dataBytes){
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'});
+        header.putInt((int) (36 + dataBytes));
+        header.put(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        header.putInt(16);              // fmt chunk size
+        header.putShort((short) 1);     // PCM
+        header.putShort((short) 1);     // mono
+        header.putInt((int) sample_rate);
+        header.putInt((int) sample_rate * 2);
+        header.putShort((short) 2);     // bytes per frame
+        header.putShort((short) 16);    // bits per sample
+        header.put(new byte[]{'d', 'a', 't', 'a'});
+        header.putInt((int) dataBytes);
+        header.flip();
+        return header;
+    }
+}